@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reloads the in-memory credentials when the {@link AclVersion} changed, e.g. because another cluster member
+ * changed them and the change was replicated to this instance. The version is polled by a background thread,
+ * so requests never open a transaction and every instance converges within one refresh interval.
+ */
+public class AclRefresher {
+    private static final Logger LOG = LoggerFactory.getLogger(AclRefresher.class);
+
+    private final GraphDatabaseAPI graph;
+    private final MultipleAuthenticationService users;
+    private final ApiKeyAuthenticationService apiKeys;
+    private volatile long version;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param version the {@link AclVersion} the credentials are loaded at, read before loading them
+     */
+    public AclRefresher(GraphDatabaseAPI graph, long version,
+                        MultipleAuthenticationService users, ApiKeyAuthenticationService apiKeys) {
+        this.graph = graph;
+        this.version = version;
+        this.users = users;
+        this.apiKeys = apiKeys;
+    }
+
+    /**
+     * @return true if the credentials were reloaded
+     */
+    public synchronized boolean refresh() {
+        final long current = AclVersion.get(graph);
+        if (current == version) return false;
+
+        users.reload();
+        apiKeys.reload();
+        version = current;
+        if (LOG.isDebugEnabled()) LOG.debug("reloaded credentials for acl version " + current);
+        return true;
+    }
+
+    public synchronized void start(long intervalMillis) {
+        if (scheduler != null) throw new IllegalStateException("already started");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "authentication-acl-refresh");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    LOG.warn("unable to refresh credentials", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.neo4j.server.extension.auth.ApiKeyAuthenticationService.ApiKey;
+import org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Compact copy of the credentials and api-key digests written on shutdown, so that a restart does not have to
+ * scan the graph properties before serving the first request; only the {@link AclVersion} counter is read to
+ * validate the snapshot. The header records the version the credentials were read at and the file ends with a
+ * CRC32 over its content;
+ * a snapshot that is missing, truncated, fails the checksum or was written at another version is ignored.
+ * The file holds plain credentials and is only readable by its owner.
+ */
+public class AclSnapshot {
+    private static final Logger LOG = LoggerFactory.getLogger(AclSnapshot.class);
+    private static final int MAGIC = 0x4E41434C;
+    private static final int FORMAT = 3;
+
+    private final File file;
+
+    public AclSnapshot(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @param version the {@link AclVersion} read before the permissions were loaded from the graph
+     */
+    public void write(long version, Map<String, Permission> permissions, Map<String, ApiKey> apiKeys) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        if (tmp.exists() && !tmp.delete()) {
+            throw new IOException("unable to delete " + tmp);
+        }
+        if (!tmp.createNewFile() || !ownerOnly(tmp)) {
+            throw new IOException("unable to create " + tmp + " readable by its owner only");
+        }
+        final CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(version);
+            out.writeInt(permissions.size());
+            for (Map.Entry<String, Permission> entry : permissions.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeByte(entry.getValue().ordinal());
+            }
+            out.writeInt(apiKeys.size());
+            for (Map.Entry<String, ApiKey> entry : apiKeys.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue().getUser());
+                out.writeByte(entry.getValue().getPermission().ordinal());
+            }
+            final long checksum = crc.getValue();
+            out.writeLong(checksum);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("unable to replace " + file);
+        }
+    }
+
+    private static boolean ownerOnly(File file) {
+        return file.setReadable(false, false) && file.setReadable(true, true)
+                && file.setWritable(false, false) && file.setWritable(true, true)
+                && file.setExecutable(false, false);
+    }
+
+    /**
+     * @param version the current {@link AclVersion} of the graph
+     * @return the persisted credentials, or null if there is no usable snapshot for this version
+     */
+    public Content read(long version) {
+        if (!file.isFile()) return null;
+
+        final CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT) {
+                LOG.warn("ignoring acl snapshot " + file + ": unknown format");
+                return null;
+            }
+            final long snapshotVersion = in.readLong();
+            if (snapshotVersion != version) {
+                LOG.warn("ignoring acl snapshot " + file + ": written at acl version " + snapshotVersion
+                        + ", graph is at " + version);
+                return null;
+            }
+            int size = readSize(in);
+            final Map<String, Permission> permissions = new HashMap<String, Permission>(Math.min(size, 1 << 16) * 2);
+            for (int i = 0; i < size; i++) {
+                final String key = in.readUTF();
+                permissions.put(key, readPermission(in));
+            }
+            size = readSize(in);
+            final Map<String, ApiKey> apiKeys = new HashMap<String, ApiKey>(Math.min(size, 1 << 16) * 2);
+            for (int i = 0; i < size; i++) {
+                final String digest = in.readUTF();
+                final String user = in.readUTF();
+                apiKeys.put(digest, new ApiKey(user, readPermission(in)));
+            }
+            final long expected = crc.getValue();
+            if (in.readLong() != expected || in.read() != -1) {
+                LOG.warn("ignoring acl snapshot " + file + ": checksum mismatch");
+                return null;
+            }
+            return new Content(permissions, apiKeys);
+        } catch (IOException e) {
+            LOG.warn("ignoring acl snapshot " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static int readSize(DataInputStream in) throws IOException {
+        final int size = in.readInt();
+        if (size < 0) throw new IOException("corrupt header");
+        return size;
+    }
+
+    private static Permission readPermission(DataInputStream in) throws IOException {
+        final int ordinal = in.readUnsignedByte();
+        final Permission[] values = Permission.values();
+        if (ordinal >= values.length) throw new IOException("corrupt entry");
+        return values[ordinal];
+    }
+
+    public static class Content {
+        private final Map<String, Permission> permissions;
+        private final Map<String, ApiKey> apiKeys;
+
+        Content(Map<String, Permission> permissions, Map<String, ApiKey> apiKeys) {
+            this.permissions = permissions;
+            this.apiKeys = apiKeys;
+        }
+
+        public Map<String, Permission> getPermissions() {
+            return permissions;
+        }
+
+        public Map<String, ApiKey> getApiKeys() {
+            return apiKeys;
+        }
+    }
+}
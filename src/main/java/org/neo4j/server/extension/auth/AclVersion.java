@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+/**
+ * Counter stored next to the credentials and incremented in every transaction that changes them. It is replicated
+ * with those changes, so an instance can tell that its in-memory tables are outdated by reading a single property.
+ */
+public final class AclVersion {
+    private static final String VERSION_KEY = AclVersion.class.getPackage().getName() + ".acl_version";
+
+    private AclVersion() {
+    }
+
+    /**
+     * must be called inside the transaction that changes the credentials; the write lock keeps concurrent
+     * changes, from this instance or forwarded by other cluster members, from committing the same version
+     */
+    static void increment(Transaction tx, PropertyContainer properties) {
+        tx.acquireWriteLock(properties);
+        properties.setProperty(VERSION_KEY, get(properties) + 1);
+    }
+
+    static long get(PropertyContainer properties) {
+        final Object version = properties.getProperty(VERSION_KEY, 0L);
+        return version instanceof Number ? ((Number) version).longValue() : 0L;
+    }
+
+    public static long get(GraphDatabaseAPI graph) {
+        try (Transaction tx = graph.beginTx()) {
+            NodeManager nodeManager = graph.getDependencyResolver().resolveDependency(NodeManager.class);
+            final long version = get(nodeManager.getGraphProperties());
+            tx.success();
+            return version;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Authenticates the value of an api-key header. Keys are handed out once and only their SHA-256 digest
+ * is stored; a principal may hold several keys at a time so that keys can be rotated without downtime.
+ * <p/>
+ * Lookups go through an open-addressing table indexed by the first 8 bytes of the digest, so a check
+ * costs one digest and usually a single probe.
+ */
+public class ApiKeyAuthenticationService implements AuthenticationService {
+
+    private static final String CONFIG_PREFIX = ApiKeyAuthenticationService.class.getPackage().getName();
+    private static final String KEY_PREFIX = CONFIG_PREFIX + ".apikey.";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern DIGEST_PATTERN = Pattern.compile("[0-9a-f]{64}");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int KEY_BYTES = 24;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = new ThreadLocal<MessageDigest>() {
+        @Override protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private final GraphDatabaseAPI graph;
+    private final SecureRandom random = new SecureRandom();
+    private volatile Table table;
+
+    public ApiKeyAuthenticationService(GraphDatabaseAPI graph) {
+        this.graph = graph;
+    }
+
+    @Override public boolean hasAccess(String method, byte[] key) {
+        final Permission permission = getTable().find(digest(key));
+        return permission != null && permission.allows(method);
+    }
+
+    /**
+     * @return the digests of all keys with their principal and permission
+     */
+    public Map<String, ApiKey> getKeys() {
+        return getTable().keys;
+    }
+
+    /**
+     * creates a new key for the principal, existing keys of the principal stay valid
+     *
+     * @return the key, which cannot be recovered later
+     */
+    public synchronized String createKey(String user, Permission permission) {
+        if (permission == Permission.NONE) throw new IllegalArgumentException("permission must be RO or RW");
+
+        final byte[] bytes = new byte[KEY_BYTES];
+        random.nextBytes(bytes);
+        final String key = hex(bytes);
+        try (Transaction tx = graph.beginTx()) {
+            PropertyContainer properties = getGraphProperties();
+            properties.setProperty(KEY_PREFIX + hex(digest(key.getBytes(UTF8))), permission.name() + ":" + user);
+            AclVersion.increment(tx, properties);
+            tx.success();
+        }
+        reload();
+        return key;
+    }
+
+    /**
+     * @param digest the digest of the key as listed by {@link #getKeys()}
+     * @return false if there was no such key
+     */
+    public synchronized boolean removeKey(String digest) {
+        final String property = KEY_PREFIX + digest.toLowerCase();
+        boolean removed;
+        try (Transaction tx = graph.beginTx()) {
+            PropertyContainer properties = getGraphProperties();
+            removed = properties.hasProperty(property);
+            if (removed) {
+                properties.removeProperty(property);
+                AclVersion.increment(tx, properties);
+            }
+            tx.success();
+        }
+        reload();
+        return removed;
+    }
+
+    /**
+     * replaces the in-memory keys with a previously persisted copy, e.g. an {@link AclSnapshot}
+     */
+    public void restore(Map<String, ApiKey> snapshot) {
+        table = new Table(new HashMap<String, ApiKey>(snapshot));
+    }
+
+    public synchronized void reload() {
+        try (Transaction tx = graph.beginTx()) {
+            final Map<String, ApiKey> keys = new HashMap<String, ApiKey>();
+            PropertyContainer properties = getGraphProperties();
+            for (String property : properties.getPropertyKeys()) {
+                if (!property.startsWith(KEY_PREFIX)) continue;
+                String digest = property.substring(KEY_PREFIX.length());
+                if (!DIGEST_PATTERN.matcher(digest).matches()) continue;
+                Object value = properties.getProperty(property);
+                if (!(value instanceof String)) continue;
+                String[] parts = ((String) value).split(":", 2);
+                Permission permission = Permission.parse(parts[0]);
+                if (parts.length == 2 && permission != Permission.NONE) {
+                    keys.put(digest, new ApiKey(parts[1], permission));
+                }
+            }
+            tx.success();
+            table = new Table(keys);
+        }
+    }
+
+    private Table getTable() {
+        Table current = table;
+        if (current == null) {
+            reload();
+            current = table;
+        }
+        return current;
+    }
+
+    private PropertyContainer getGraphProperties() {
+        NodeManager nodeManager = graph.getDependencyResolver().resolveDependency(NodeManager.class);
+        return nodeManager.getGraphProperties();
+    }
+
+    private static byte[] digest(byte[] key) {
+        final MessageDigest digest = DIGEST.get();
+        digest.reset();
+        return digest.digest(key);
+    }
+
+    private static String hex(byte[] bytes) {
+        final char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            result[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
+    private static byte[] unhex(String hex) {
+        final byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    private static long truncate(byte[] digest) {
+        long result = 0;
+        for (int i = 0; i < 8; i++) {
+            result = (result << 8) | (digest[i] & 0xff);
+        }
+        return result;
+    }
+
+    public static class ApiKey {
+        private final String user;
+        private final Permission permission;
+
+        ApiKey(String user, Permission permission) {
+            this.user = user;
+            this.permission = permission;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public Permission getPermission() {
+            return permission;
+        }
+    }
+
+    /**
+     * immutable, rebuilt on every change; slots are filled at less than half the capacity
+     */
+    private static class Table {
+        private final Map<String, ApiKey> keys;
+        private final long[] prefixes;
+        private final byte[][] digests;
+        private final Permission[] permissions;
+        private final int mask;
+
+        Table(Map<String, ApiKey> keys) {
+            this.keys = Collections.unmodifiableMap(keys);
+            int capacity = 16;
+            while (capacity < keys.size() * 2) capacity <<= 1;
+            prefixes = new long[capacity];
+            digests = new byte[capacity][];
+            permissions = new Permission[capacity];
+            mask = capacity - 1;
+
+            for (Map.Entry<String, ApiKey> entry : keys.entrySet()) {
+                final byte[] digest = unhex(entry.getKey());
+                final long prefix = truncate(digest);
+                int slot = (int) prefix & mask;
+                while (digests[slot] != null) slot = (slot + 1) & mask;
+                prefixes[slot] = prefix;
+                digests[slot] = digest;
+                permissions[slot] = entry.getValue().getPermission();
+            }
+        }
+
+        Permission find(byte[] digest) {
+            final long prefix = truncate(digest);
+            for (int slot = (int) prefix & mask; digests[slot] != null; slot = (slot + 1) & mask) {
+                if (prefixes[slot] == prefix && MessageDigest.isEqual(digests[slot], digest)) {
+                    return permissions[slot];
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -33,8 +33,12 @@ import org.neo4j.server.web.WebServer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.ServletException;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 
 import static org.neo4j.server.extension.auth.TypedInjectable.injectable;
 
@@ -44,6 +48,12 @@ public class AuthenticationExtensionInitializer implements SPIPluginLifecycle {
     private AuthenticationFilter authenticationFilter;
     private WebServer webServer;
     private String adminPath;
+    private GraphDatabaseAPI graph;
+    private MultipleAuthenticationService users;
+    private ApiKeyAuthenticationService apiKeys;
+    private AclSnapshot snapshot;
+    private ShadowEvaluator shadow;
+    private AclRefresher refresher;
 
     @Override
     public Collection<Injectable<?>> start(final GraphDatabaseService graphDatabaseService, final Configuration config) {
@@ -52,6 +62,22 @@ public class AuthenticationExtensionInitializer implements SPIPluginLifecycle {
 
     @Override
     public void stop() {
+        if (refresher != null) {
+            refresher.stop();
+        }
+        if (shadow != null && shadow.isEnabled()) {
+            shadow.shutdown();
+            if (LOG.isInfoEnabled()) LOG.info("shadow evaluation " + shadow.getStats());
+        }
+        if (snapshot != null && users != null) {
+            try {
+                final long version = AclVersion.get(graph);
+                apiKeys.reload();
+                snapshot.write(version, users.reload(), apiKeys.getKeys());
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("unable to write acl snapshot", e);
+            }
+        }
         if (adminAuthenticationFilter != null) {
             webServer.removeFilter(adminAuthenticationFilter, adminPath);
         }
@@ -63,6 +89,7 @@ public class AuthenticationExtensionInitializer implements SPIPluginLifecycle {
     @Override
     public Collection<Injectable<?>> start(final NeoServer neoServer) {
         if (LOG.isInfoEnabled()) LOG.info("START " + AuthenticationExtensionInitializer.class.toString());
+        final long startTime = System.currentTimeMillis();
 
         webServer = getWebServer(neoServer);
         final Configurator configurator = neoServer.getConfigurator();
@@ -76,16 +103,123 @@ public class AuthenticationExtensionInitializer implements SPIPluginLifecycle {
         final SingleUserAuthenticationService adminAuth = new SingleUserAuthenticationService(masterCredendials);
         Database database = neoServer.getDatabase();
         GraphDatabaseAPI graphDatabaseAPI = database.getGraph();
-        final MultipleAuthenticationService users = new MultipleAuthenticationService(graphDatabaseAPI);
+        graph = graphDatabaseAPI;
+        users = new MultipleAuthenticationService(graphDatabaseAPI);
+        apiKeys = new ApiKeyAuthenticationService(graphDatabaseAPI);
+        final long version = AclVersion.get(graphDatabaseAPI);
+        refresher = new AclRefresher(graphDatabaseAPI, version, users, apiKeys);
+        loadCredentials(configuration, version);
+        final long refreshInterval = configuration.getLong("org.neo4j.server.credentials.refresh_interval", 1000);
+        if (refreshInterval > 0) {
+            refresher.start(refreshInterval);
+        }
 
         adminAuthenticationFilter = new AuthenticationFilter("neo4j-admin", adminAuth);
         adminPath = getMyMountpoint(configurator) + "/*";
         webServer.addFilter(adminAuthenticationFilter, adminPath);
 
         authenticationFilter = new AuthenticationFilter("neo4j graphdb", users, adminAuth);
+        authenticationFilter.setApiKeyService(apiKeys);
+        shadow = createShadow(configuration, graphDatabaseAPI, adminAuth);
+        if (configuration.getBoolean("org.neo4j.server.credentials.batch_inspection", false)) {
+            authenticationFilter.setBatchAuthorization(createBatchAuthorization(configuration));
+        }
         webServer.addFilter(authenticationFilter, "/*");
 
-        return Arrays.<Injectable<?>>asList(injectable(users));
+        warmUp(configuration.getInt("org.neo4j.server.credentials.warmup", 10000), masterCredendials);
+        // after the warm-up, so its synthetic requests are neither sampled nor counted
+        if (shadow.isEnabled()) {
+            authenticationFilter.setShadow(shadow);
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("authentication ready in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+        authenticationFilter.setSteadyStateProbe(new SteadyStateProbe());
+        return Arrays.<Injectable<?>>asList(injectable(users), injectable(apiKeys), injectable(shadow));
+    }
+
+    private void loadCredentials(final Configuration configuration, final long version) {
+        final long startTime = System.currentTimeMillis();
+        final String snapshotFile = configuration.getString("org.neo4j.server.credentials.snapshot");
+        snapshot = snapshotFile == null ? null : new AclSnapshot(new File(snapshotFile));
+
+        final AclSnapshot.Content persisted = snapshot == null ? null : snapshot.read(version);
+        final String source;
+        if (persisted != null) {
+            users.restore(persisted.getPermissions());
+            apiKeys.restore(persisted.getApiKeys());
+            source = "snapshot " + snapshotFile;
+        } else {
+            users.reload();
+            apiKeys.reload();
+            source = "graph";
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("loaded " + users.getPermissions().size() + " credentials and "
+                    + apiKeys.getKeys().size() + " api keys from " + source
+                    + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+    }
+
+    private BatchAuthorization createBatchAuthorization(final Configuration configuration) {
+        String dataPath = configuration.getString(Configurator.REST_API_PATH_PROPERTY_KEY, Configurator.DEFAULT_DATA_API_PATH);
+        if (dataPath.endsWith("/")) dataPath = dataPath.substring(0, dataPath.length() - 1);
+        return new BatchAuthorization(dataPath + "/batch",
+                configuration.getInt("org.neo4j.server.credentials.batch_max_bytes", 1024 * 1024),
+                configuration.getInt("org.neo4j.server.credentials.batch_max_jobs", 1000));
+    }
+
+    /**
+     * the candidate named by org.neo4j.server.credentials.shadow.class replaces the user database in a copy of the
+     * authoritative chain; it is created with a GraphDatabaseAPI constructor if it has one
+     */
+    private ShadowEvaluator createShadow(final Configuration configuration, final GraphDatabaseAPI graphDatabaseAPI,
+                                         final AuthenticationService adminAuth) {
+        final String candidateClass = configuration.getString("org.neo4j.server.credentials.shadow.class");
+        if (candidateClass == null) {
+            return ShadowEvaluator.disabled();
+        }
+        final AuthenticationService candidate;
+        try {
+            final Class<? extends AuthenticationService> type = Class.forName(candidateClass).asSubclass(AuthenticationService.class);
+            AuthenticationService instance;
+            try {
+                instance = type.getConstructor(GraphDatabaseAPI.class).newInstance(graphDatabaseAPI);
+            } catch (NoSuchMethodException e) {
+                instance = type.newInstance();
+            }
+            candidate = instance;
+        } catch (Exception e) {
+            throw new RuntimeException("unable to create shadow candidate " + candidateClass, e);
+        }
+        if (LOG.isInfoEnabled()) LOG.info("shadowing authentication with " + candidateClass);
+        return new ShadowEvaluator(
+                configuration.getDouble("org.neo4j.server.credentials.shadow.sample_rate", 0.01),
+                configuration.getInt("org.neo4j.server.credentials.shadow.queue_size", 1000),
+                candidate, adminAuth);
+    }
+
+    /**
+     * the admin credential exercises the grant path of both filters, a user credential if there is one also
+     * {@link MultipleAuthenticationService.Permission#allows}
+     */
+    private void warmUp(final int iterations, final String adminCredentials) {
+        final long startTime = System.currentTimeMillis();
+        final Iterator<String> userCredentials = users.getPermissions().keySet().iterator();
+        try {
+            adminAuthenticationFilter.warmUp(iterations, adminCredentials);
+            if (userCredentials.hasNext()) {
+                authenticationFilter.warmUp(iterations, adminCredentials, userCredentials.next());
+            } else {
+                authenticationFilter.warmUp(iterations, adminCredentials);
+            }
+        } catch (IOException | ServletException e) {
+            LOG.warn("filter warm-up failed", e);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("warmed up filters with " + iterations + " checks in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
     }
 
     private WebServer getWebServer(final NeoServer neoServer) {
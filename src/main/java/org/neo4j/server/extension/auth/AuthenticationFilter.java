@@ -20,19 +20,31 @@
 package org.neo4j.server.extension.auth;
 
 import sun.misc.BASE64Decoder;
+import sun.misc.BASE64Encoder;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author tbaum
  * @since 23.01.11
  */
 public class AuthenticationFilter implements Filter {
+    public static final String API_KEY_HEADER = "X-Api-Key";
+    private static final String[] WARM_UP_METHODS = {"GET", "POST", "PUT", "DELETE"};
     private final AuthenticationService[] authenticationService;
     private final String realmName;
+    private volatile BatchAuthorization batchAuthorization;
+    private volatile AuthenticationService[] apiKeyService;
+    private volatile ShadowEvaluator shadow;
+    private volatile SteadyStateProbe probe;
 
     public AuthenticationFilter(final String realmName, final AuthenticationService... authenticationService) {
         this.authenticationService = authenticationService;
@@ -51,26 +63,158 @@ public class AuthenticationFilter implements Filter {
         final HttpServletRequest request = (HttpServletRequest) req;
         final HttpServletResponse response = (HttpServletResponse) res;
 
-        final String header = request.getHeader("Authorization");
+        final String apiKey = apiKeyService == null ? null : request.getHeader(API_KEY_HEADER);
+        final AuthenticationService[] services = apiKey == null ? authenticationService : apiKeyService;
+        final byte[] credentials = apiKey == null
+                ? getCredentials(request.getHeader("Authorization"))
+                : apiKey.trim().getBytes("UTF-8");
 
-        if (checkAuth(((HttpServletRequest) req).getMethod(), header)) {
+        if (credentials != null && timedCheckAuth(services, request.getMethod(), credentials)) {
             chain.doFilter(request, response);
+        } else if (credentials != null && batchAuthorization != null && batchAuthorization.appliesTo(request)
+                && hasAccess(services, "GET", credentials)) {
+            // only known credentials may make the server read and hold a batch body
+            doBatchFilter(request, response, chain, services, credentials);
         } else {
             sendAuthHeader(response);
         }
     }
 
+    private void doBatchFilter(final HttpServletRequest request, final HttpServletResponse response,
+                               final FilterChain chain, final AuthenticationService[] services,
+                               final byte[] credentials) throws IOException, ServletException {
+        final HttpServletRequest authorized;
+        try {
+            authorized = batchAuthorization.authorize(request, credentials, services);
+        } catch (BatchAuthorization.RejectedException e) {
+            if (e.getStatus() == HttpServletResponse.SC_UNAUTHORIZED) {
+                sendAuthHeader(response);
+            } else {
+                response.sendError(e.getStatus(), e.getMessage());
+            }
+            return;
+        }
+        chain.doFilter(authorized, response);
+    }
+
     public void destroy() {
     }
 
-    private boolean checkAuth(String method, String header) throws IOException {
+    /**
+     * drives {@link #doFilter} with stub requests carrying the given credentials, a credential nobody owns and,
+     * if api keys are accepted, a key nobody owns, so the first real requests do not pay for class loading and
+     * interpretation of the grant, denial and api-key paths
+     */
+    void warmUp(int iterations, String... credentials) throws IOException, ServletException {
+        final List<HttpServletRequest> requests = new ArrayList<HttpServletRequest>();
+        final String unknown = "warm-up:" + System.nanoTime();
+        for (String method : WARM_UP_METHODS) {
+            for (String credential : credentials) {
+                requests.add(stub(HttpServletRequest.class, method, "Authorization", basic(credential)));
+            }
+            requests.add(stub(HttpServletRequest.class, method, "Authorization", basic(unknown)));
+            if (apiKeyService != null) {
+                requests.add(stub(HttpServletRequest.class, method, API_KEY_HEADER, unknown));
+            }
+        }
+        final HttpServletResponse response = stub(HttpServletResponse.class, null, null, null);
+        final FilterChain chain = new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response) {
+            }
+        };
+        for (int i = 0; i < iterations; i++) {
+            doFilter(requests.get(i % requests.size()), response, chain);
+        }
+    }
+
+    private static String basic(String credentials) {
+        return "Basic " + new BASE64Encoder().encode(credentials.getBytes());
+    }
+
+    /**
+     * a request to a path no batch applies to with a single header, or a response ignoring everything written to it
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, final String method, final String header, final String value) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                final String name = invoked.getName();
+                if (name.equals("getMethod")) return method;
+                if (name.equals("getRequestURI")) return "/warm-up";
+                if (name.equals("getHeader")) return ((String) args[0]).equalsIgnoreCase(header) ? value : null;
+                final Class<?> returnType = invoked.getReturnType();
+                if (returnType == boolean.class) return false;
+                if (returnType == int.class) return 0;
+                if (returnType == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * enables per-job authorization of batch requests the credentials could not POST as a whole
+     */
+    public void setBatchAuthorization(final BatchAuthorization batchAuthorization) {
+        this.batchAuthorization = batchAuthorization;
+    }
+
+    /**
+     * additionally accepts the {@value #API_KEY_HEADER} header; requests carrying it are checked against the api keys only
+     */
+    public void setApiKeyService(final ApiKeyAuthenticationService apiKeyService) {
+        this.apiKeyService = new AuthenticationService[]{apiKeyService};
+    }
+
+    /**
+     * evaluates a candidate chain on a sample of basic-auth requests, the verdict of this filter's chain is enforced
+     */
+    public void setShadow(final ShadowEvaluator shadow) {
+        this.shadow = shadow;
+    }
+
+    /**
+     * times the credential checks until they reach steady state
+     */
+    public void setSteadyStateProbe(final SteadyStateProbe probe) {
+        this.probe = probe;
+    }
+
+    private boolean timedCheckAuth(AuthenticationService[] services, String method, byte[] credentials) {
+        final SteadyStateProbe probe = this.probe;
+        if (probe == null || probe.isSteady()) {
+            return checkAuth(services, method, credentials);
+        }
+        final long start = System.nanoTime();
+        final boolean verdict = checkAuth(services, method, credentials);
+        probe.record(System.nanoTime() - start);
+        return verdict;
+    }
+
+    private boolean checkAuth(AuthenticationService[] services, String method, byte[] credentials) {
+        final ShadowEvaluator shadow = this.shadow;
+        if (shadow == null || services != authenticationService || !shadow.sample()) {
+            return hasAccess(services, method, credentials);
+        }
+        final long start = System.nanoTime();
+        final boolean verdict = hasAccess(services, method, credentials);
+        shadow.submit(method, credentials, verdict, System.nanoTime() - start);
+        return verdict;
+    }
+
+    private byte[] getCredentials(String header) throws IOException {
         if (header == null) {
-            return false;
+            return null;
         }
 
         final String encoded = header.substring(header.indexOf(" ") + 1);
-        byte[] credentials = new BASE64Decoder().decodeBuffer(encoded);
-        for (AuthenticationService service : authenticationService) {
+        return new BASE64Decoder().decodeBuffer(encoded);
+    }
+
+    /**
+     * the one place a chain of services is evaluated: the first service granting access decides
+     */
+    static boolean hasAccess(AuthenticationService[] services, String method, byte[] credentials) {
+        for (AuthenticationService service : services) {
             if (service.hasAccess(method, credentials)) {
                 return true;
             }
@@ -26,7 +26,9 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 
 import java.io.IOException;
+import java.util.List;
 
+import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import static javax.ws.rs.core.Response.Status.OK;
 import static org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission.*;
 
@@ -35,9 +37,15 @@ public class AuthenticationResource {
 
     private final static ObjectMapper mapper = new ObjectMapper();
     private final MultipleAuthenticationService users;
+    private final ApiKeyAuthenticationService apiKeys;
+    private final ShadowEvaluator shadow;
 
-    public AuthenticationResource(@Context MultipleAuthenticationService users) {
+    public AuthenticationResource(@Context MultipleAuthenticationService users,
+                                  @Context ApiKeyAuthenticationService apiKeys,
+                                  @Context ShadowEvaluator shadow) {
         this.users = users;
+        this.apiKeys = apiKeys;
+        this.shadow = shadow;
     }
 
     @GET @Path("/list")
@@ -67,4 +75,78 @@ public class AuthenticationResource {
         users.setPermissionForUser(user, NONE);
         return Response.status(OK).entity("OK").build();
     }
+
+    @GET @Path("/list-groups")
+    public Response listGroups() throws IOException {
+        final String result = mapper.writeValueAsString(users.getGroups());
+        return Response.status(OK).entity(result).build();
+    }
+
+    @POST @Path("/add-group-ro")
+    public Response addGroupRo(@FormParam("group") String group) {
+        if (group == null) throw new IllegalArgumentException("missing parameter 'group'");
+        users.setPermissionForGroup(group, RO);
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @POST @Path("/add-group-rw")
+    public Response addGroupRw(@FormParam("group") String group) {
+        if (group == null) throw new IllegalArgumentException("missing parameter 'group'");
+        users.setPermissionForGroup(group, RW);
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @POST @Path("/remove-group")
+    public Response removeGroup(@FormParam("group") String group) {
+        if (group == null) throw new IllegalArgumentException("missing parameter 'group'");
+        users.setPermissionForGroup(group, NONE);
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @POST @Path("/add-members")
+    public Response addMembers(@FormParam("group") String group, @FormParam("user") List<String> members) {
+        if (group == null) throw new IllegalArgumentException("missing parameter 'group'");
+        if (members == null || members.isEmpty()) throw new IllegalArgumentException("missing parameter 'user'");
+        users.addMembers(group, members);
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @POST @Path("/remove-members")
+    public Response removeMembers(@FormParam("group") String group, @FormParam("user") List<String> members) {
+        if (group == null) throw new IllegalArgumentException("missing parameter 'group'");
+        if (members == null || members.isEmpty()) throw new IllegalArgumentException("missing parameter 'user'");
+        users.removeMembers(group, members);
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @GET @Path("/list-api-keys")
+    public Response listApiKeys() throws IOException {
+        final String result = mapper.writeValueAsString(apiKeys.getKeys());
+        return Response.status(OK).entity(result).build();
+    }
+
+    @POST @Path("/add-api-key-ro")
+    public Response addApiKeyRo(@FormParam("user") String user) {
+        if (user == null) throw new IllegalArgumentException("missing parameter 'user'");
+        return Response.status(OK).entity(apiKeys.createKey(user, RO)).build();
+    }
+
+    @POST @Path("/add-api-key-rw")
+    public Response addApiKeyRw(@FormParam("user") String user) {
+        if (user == null) throw new IllegalArgumentException("missing parameter 'user'");
+        return Response.status(OK).entity(apiKeys.createKey(user, RW)).build();
+    }
+
+    @POST @Path("/remove-api-key")
+    public Response removeApiKey(@FormParam("id") String id) {
+        if (id == null) throw new IllegalArgumentException("missing parameter 'id'");
+        if (!apiKeys.removeKey(id)) return Response.status(NOT_FOUND).entity("unknown api key").build();
+        return Response.status(OK).entity("OK").build();
+    }
+
+    @GET @Path("/shadow-stats")
+    public Response shadowStats() throws IOException {
+        final String result = mapper.writeValueAsString(shadow.getStats());
+        return Response.status(OK).entity(result).build();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParseException;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+
+/**
+ * Authorizes a POST to the batch endpoint job by job instead of as a single POST, so that read-only
+ * users can run batches of reads. The body is parsed while it is read, the first job that the
+ * credentials do not allow rejects the whole batch, and the bytes read are handed downstream as they are.
+ */
+public class BatchAuthorization {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String batchPath;
+    private final int maxBytes;
+    private final int maxJobs;
+
+    public BatchAuthorization(final String batchPath, final int maxBytes, final int maxJobs) {
+        this.batchPath = batchPath;
+        this.maxBytes = maxBytes;
+        this.maxJobs = maxJobs;
+    }
+
+    public boolean appliesTo(final HttpServletRequest request) {
+        if (!"POST".equalsIgnoreCase(request.getMethod())) return false;
+        final String uri = request.getRequestURI();
+        return uri != null && (uri.equals(batchPath) || uri.equals(batchPath + "/"));
+    }
+
+    /**
+     * @return the request to pass downstream, replaying the body consumed during inspection
+     * @throws RejectedException if a job is not allowed, the body is malformed or exceeds the configured limits
+     */
+    public HttpServletRequest authorize(final HttpServletRequest request, final byte[] credentials,
+                                        final AuthenticationService... services) throws IOException, RejectedException {
+        if (request.getContentLength() > maxBytes) {
+            throw new RejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "batch exceeds " + maxBytes + " bytes");
+        }
+
+        final Body body = new Body(Math.max(request.getContentLength(), 256));
+        final CapturingInputStream in = new CapturingInputStream(request.getInputStream(), body);
+        try {
+            inspect(JSON.createJsonParser(in), request, credentials, services);
+            in.drain();
+        } catch (BodyTooLargeException e) {
+            throw new RejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "batch exceeds " + maxBytes + " bytes");
+        } catch (JsonParseException e) {
+            throw new RejectedException(HttpServletResponse.SC_BAD_REQUEST, "malformed batch: " + e.getMessage());
+        }
+        return new ReplayingRequest(request, body);
+    }
+
+    private void inspect(final JsonParser parser, final HttpServletRequest request, final byte[] credentials,
+                         final AuthenticationService[] services) throws IOException, RejectedException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new RejectedException(HttpServletResponse.SC_BAD_REQUEST, "malformed batch: expected an array of jobs");
+        }
+        int jobs = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new RejectedException(HttpServletResponse.SC_BAD_REQUEST, "malformed batch: expected a job object");
+            }
+            if (++jobs > maxJobs) {
+                throw new RejectedException(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "batch exceeds " + maxJobs + " jobs");
+            }
+            String method = null;
+            String to = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("method".equals(field) && value == JsonToken.VALUE_STRING) {
+                    method = parser.getText();
+                } else if ("to".equals(field) && value == JsonToken.VALUE_STRING) {
+                    to = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (method == null || to == null) {
+                throw new RejectedException(HttpServletResponse.SC_BAD_REQUEST, "malformed batch: job " + jobs + " needs 'method' and 'to'");
+            }
+            if (!isDataTarget(request, to) || !AuthenticationFilter.hasAccess(services, method, credentials)) {
+                throw new RejectedException(HttpServletResponse.SC_UNAUTHORIZED, "job " + jobs + " not allowed");
+            }
+        }
+        if (jobs == 0) {
+            throw new RejectedException(HttpServletResponse.SC_UNAUTHORIZED, "empty batch");
+        }
+        if (parser.nextToken() != null) {
+            throw new RejectedException(HttpServletResponse.SC_BAD_REQUEST, "malformed batch: trailing content");
+        }
+    }
+
+    /**
+     * jobs address resources below the data api, either relative ("/node/1", "{0}/labels") or absolute
+     * on this server; anything else, including the batch endpoint itself, is refused
+     */
+    private boolean isDataTarget(final HttpServletRequest request, final String to) {
+        if (to.contains("..")) return false;
+
+        String path = to;
+        if (to.contains("://")) {
+            final String base = request.getRequestURL().toString();
+            final String dataRoot = base.substring(0, base.length() - request.getRequestURI().length())
+                    + batchPath.substring(0, batchPath.lastIndexOf('/') + 1);
+            if (!to.startsWith(dataRoot)) return false;
+            path = to.substring(dataRoot.length() - 1);
+        }
+        return !(path.equals("/batch") || path.startsWith("/batch/") || path.startsWith("/batch?"));
+    }
+
+    public static class RejectedException extends Exception {
+        private final int status;
+
+        public RejectedException(final int status, final String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    private static class BodyTooLargeException extends IOException {
+    }
+
+    /**
+     * the single copy of the body, read into while parsing and replayed from in place
+     */
+    private class Body extends ByteArrayOutputStream {
+        Body(final int size) {
+            super(Math.min(size, maxBytes));
+        }
+
+        void append(final byte[] bytes, final int off, final int len) throws BodyTooLargeException {
+            if (count + len > maxBytes) throw new BodyTooLargeException();
+            write(bytes, off, len);
+        }
+
+        InputStream replay() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
+    private static class CapturingInputStream extends FilterInputStream {
+        private final Body body;
+        private final byte[] single = new byte[1];
+
+        CapturingInputStream(final InputStream in, final Body body) {
+            super(in);
+            this.body = body;
+        }
+
+        @Override public int read() throws IOException {
+            final int read = read(single, 0, 1);
+            return read == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) body.append(b, off, read);
+            return read;
+        }
+
+        @Override public long skip(final long n) throws IOException {
+            final byte[] skipped = new byte[(int) Math.min(n, 4096)];
+            return Math.max(0, read(skipped, 0, skipped.length));
+        }
+
+        @Override public boolean markSupported() {
+            return false;
+        }
+
+        void drain() throws IOException {
+            final byte[] buffer = new byte[4096];
+            int read;
+            do {
+                read = read(buffer, 0, buffer.length);
+            } while (read != -1);
+        }
+    }
+
+    private static class ReplayingRequest extends HttpServletRequestWrapper {
+        private final Body body;
+
+        ReplayingRequest(final HttpServletRequest request, final Body body) {
+            super(request);
+            this.body = body;
+        }
+
+        @Override public ServletInputStream getInputStream() {
+            final InputStream replay = body.replay();
+            return new ServletInputStream() {
+                @Override public int read() throws IOException {
+                    return replay.read();
+                }
+
+                @Override public int read(final byte[] b, final int off, final int len) throws IOException {
+                    return replay.read(b, off, len);
+                }
+            };
+        }
+
+        @Override public BufferedReader getReader() throws UnsupportedEncodingException {
+            final String encoding = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(body.replay(), encoding == null ? "UTF-8" : encoding));
+        }
+    }
+}
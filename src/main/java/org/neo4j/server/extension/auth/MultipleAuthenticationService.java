@@ -25,8 +25,7 @@ import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.impl.core.GraphPropertiesImpl;
 import org.neo4j.kernel.impl.core.NodeManager;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -38,31 +37,81 @@ public class MultipleAuthenticationService implements AuthenticationService {
 
     private static final String CONFIG_PREFIX = MultipleAuthenticationService.class.getPackage().getName();
     private static final Pattern USER_PATTERN = Pattern.compile(CONFIG_PREFIX + "\\.user\\.(.+?)(:.+)?");
+    private static final String USER_PREFIX = CONFIG_PREFIX + ".user.";
+    private static final String GROUP_PREFIX = CONFIG_PREFIX + ".group.";
+    private static final String MEMBER_PREFIX = CONFIG_PREFIX + ".member.";
+    private static final Pattern MEMBER_PATTERN = Pattern.compile(CONFIG_PREFIX + "\\.member\\.(.+?)(:.+)?");
+    private static final Pattern GROUP_NAME_PATTERN = Pattern.compile("[\\w.-]+");
     private final GraphDatabaseAPI graph;
 
+    /**
+     * "user:password" to its effective permission, the highest of its own and those of its groups.
+     * Replaced as a whole on every change so that {@link #hasAccess} can read it without a transaction or a lock.
+     */
+    private volatile Map<String, Permission> permissions;
+
     public MultipleAuthenticationService(GraphDatabaseAPI graph) {
         this.graph = graph;
     }
 
     @Override public boolean hasAccess(String method, final byte[] credentials) {
-        final String cred = new String(credentials);
-        final String rights = getCredentials(cred);
+        final Permission permission = getPermissions().get(new String(credentials));
+        return permission != null && permission.allows(method);
+    }
+
+    /**
+     * @return an immutable view of all credentials and their permissions, loaded from the graph on first use
+     */
+    public Map<String, Permission> getPermissions() {
+        Map<String, Permission> current = permissions;
+        if (current == null) {
+            current = reload();
+        }
+        return current;
+    }
 
-        return isVerb(method, "PUT", "POST", "DELETE") && rights.contains("W") ||
-                isVerb(method, "GET") && rights.contains("R");
+    /**
+     * replaces the in-memory credentials with a previously persisted copy, e.g. an {@link AclSnapshot}
+     */
+    public void restore(Map<String, Permission> snapshot) {
+        permissions = Collections.unmodifiableMap(new HashMap<String, Permission>(snapshot));
     }
 
-    private String getCredentials(String cred) {
-        Transaction tx = graph.beginTx();
-        try {
+    /**
+     * rebuilds the in-memory credentials from the graph properties
+     */
+    public synchronized Map<String, Permission> reload() {
+        try (Transaction tx = graph.beginTx()) {
+            final Map<String, Permission> result = new HashMap<String, Permission>();
+            final Map<String, Permission> groups = new HashMap<String, Permission>();
+            final Map<String, Set<String>> memberships = new HashMap<String, Set<String>>();
+
             PropertyContainer properties = getGraphProperties();
-            String userKey = getUserKey(cred);
-            Object result = properties.getProperty(userKey, "");
-            String credentials = (result instanceof Boolean) ? "" : (String) result;
+            for (String key : properties.getPropertyKeys()) {
+                if (key.startsWith(USER_PREFIX)) {
+                    Permission permission = Permission.parse(properties.getProperty(key));
+                    if (permission != Permission.NONE) {
+                        result.put(key.substring(USER_PREFIX.length()), permission);
+                    }
+                } else if (key.startsWith(GROUP_PREFIX)) {
+                    groups.put(key.substring(GROUP_PREFIX.length()), Permission.parse(properties.getProperty(key)));
+                } else if (key.startsWith(MEMBER_PREFIX)) {
+                    memberships.put(key.substring(MEMBER_PREFIX.length()), parseGroups(properties.getProperty(key)));
+                }
+            }
             tx.success();
-            return credentials;
-        } finally {
-            tx.finish();
+
+            for (Map.Entry<String, Set<String>> membership : memberships.entrySet()) {
+                Permission effective = result.get(membership.getKey());
+                for (String group : membership.getValue()) {
+                    effective = Permission.max(effective, groups.get(group));
+                }
+                if (effective != null && effective != Permission.NONE) {
+                    result.put(membership.getKey(), effective);
+                }
+            }
+            permissions = Collections.unmodifiableMap(result);
+            return permissions;
         }
     }
 
@@ -72,7 +121,7 @@ public class MultipleAuthenticationService implements AuthenticationService {
     }
 
     private String getUserKey(String cred) {
-        return CONFIG_PREFIX + ".user." + cred;
+        return USER_PREFIX + cred;
     }
 
     public Map<String, Permission> getUsers() {
@@ -92,7 +141,127 @@ public class MultipleAuthenticationService implements AuthenticationService {
         }
     }
 
-    private boolean isVerb(String method, final String... verbs) {
+    /**
+     * @return every group with its permission and the user names of its members
+     */
+    public Map<String, Group> getGroups() {
+        try (Transaction tx = graph.beginTx()) {
+            final Map<String, Group> result = new TreeMap<String, Group>();
+
+            PropertyContainer properties = getGraphProperties();
+            for (String key : properties.getPropertyKeys()) {
+                if (key.startsWith(GROUP_PREFIX)) {
+                    String name = key.substring(GROUP_PREFIX.length());
+                    result.put(name, new Group(Permission.parse(properties.getProperty(key))));
+                }
+            }
+            for (String key : properties.getPropertyKeys()) {
+                Matcher matcher = MEMBER_PATTERN.matcher(key);
+                if (!matcher.matches()) continue;
+                for (String name : parseGroups(properties.getProperty(key))) {
+                    Group group = result.get(name);
+                    if (group != null) group.members.add(matcher.group(1));
+                }
+            }
+            tx.success();
+            return result;
+        }
+    }
+
+    /**
+     * creates or changes a group, {@link Permission#NONE} removes the group and all its memberships
+     */
+    public synchronized void setPermissionForGroup(String group, Permission permission) {
+        checkGroupName(group);
+        try (Transaction tx = graph.beginTx()) {
+            PropertyContainer properties = getGraphProperties();
+            if (permission == Permission.NONE) {
+                properties.removeProperty(GROUP_PREFIX + group);
+                for (String key : toList(properties.getPropertyKeys())) {
+                    if (key.startsWith(MEMBER_PREFIX)) {
+                        updateMembership(properties, key, group, false);
+                    }
+                }
+            } else {
+                properties.setProperty(GROUP_PREFIX + group, permission.name());
+            }
+            AclVersion.increment(tx, properties);
+            tx.success();
+        }
+        reload();
+    }
+
+    /**
+     * adds all credentials to the group in a single transaction
+     */
+    public synchronized void addMembers(String group, Collection<String> users) {
+        changeMembers(group, users, true);
+    }
+
+    /**
+     * removes all credentials from the group in a single transaction
+     */
+    public synchronized void removeMembers(String group, Collection<String> users) {
+        changeMembers(group, users, false);
+    }
+
+    private void changeMembers(String group, Collection<String> users, boolean add) {
+        checkGroupName(group);
+        try (Transaction tx = graph.beginTx()) {
+            PropertyContainer properties = getGraphProperties();
+            if (!properties.hasProperty(GROUP_PREFIX + group)) {
+                throw new IllegalArgumentException("unknown group '" + group + "'");
+            }
+            for (String user : users) {
+                updateMembership(properties, MEMBER_PREFIX + user, group, add);
+            }
+            AclVersion.increment(tx, properties);
+            tx.success();
+        }
+        reload();
+    }
+
+    private void updateMembership(PropertyContainer properties, String key, String group, boolean add) {
+        final Set<String> groups = parseGroups(properties.getProperty(key, null));
+        if (!(add ? groups.add(group) : groups.remove(group))) return;
+
+        if (groups.isEmpty()) {
+            properties.removeProperty(key);
+        } else {
+            StringBuilder value = new StringBuilder();
+            for (String name : groups) {
+                if (value.length() > 0) value.append(',');
+                value.append(name);
+            }
+            properties.setProperty(key, value.toString());
+        }
+    }
+
+    private static Set<String> parseGroups(Object value) {
+        final Set<String> groups = new TreeSet<String>();
+        if (value instanceof String) {
+            for (String name : ((String) value).split(",")) {
+                if (!name.isEmpty()) groups.add(name);
+            }
+        }
+        return groups;
+    }
+
+    private static List<String> toList(Iterable<String> keys) {
+        final List<String> result = new ArrayList<String>();
+        for (String key : keys) {
+            result.add(key);
+        }
+        return result;
+    }
+
+    private static void checkGroupName(String group) {
+        if (group == null || !GROUP_NAME_PATTERN.matcher(group).matches()) {
+            throw new IllegalArgumentException("invalid group name '" + group + "'");
+        }
+    }
+
+    private static boolean isVerb(String method, final String... verbs) {
         for (String verb : verbs) {
             if (verb.equalsIgnoreCase(method)) {
                 return true;
@@ -101,7 +270,7 @@ public class MultipleAuthenticationService implements AuthenticationService {
         return false;
     }
 
-    public void setPermissionForUser(String user, Permission permission) {
+    public synchronized void setPermissionForUser(String user, Permission permission) {
         Transaction transaction = graph.beginTx();
         try {
             PropertyContainer properties = getGraphProperties();
@@ -111,15 +280,54 @@ public class MultipleAuthenticationService implements AuthenticationService {
             } else {
                 properties.setProperty(key, permission.name());
             }
+            AclVersion.increment(transaction, properties);
             transaction.success();
         } catch (Exception e) {
             transaction.failure();
         } finally {
             transaction.finish();
         }
+        reload();
+    }
+
+    public static class Group {
+        private final Permission permission;
+        private final Set<String> members = new TreeSet<String>();
+
+        Group(Permission permission) {
+            this.permission = permission;
+        }
+
+        public Permission getPermission() {
+            return permission;
+        }
+
+        public Set<String> getMembers() {
+            return members;
+        }
     }
 
     public enum Permission {
-        NONE, RO, RW
+        NONE, RO, RW;
+
+        static Permission max(Permission a, Permission b) {
+            if (a == null) return b;
+            if (b == null) return a;
+            return a.compareTo(b) >= 0 ? a : b;
+        }
+
+        public boolean allows(String method) {
+            return this == RW && isVerb(method, "PUT", "POST", "DELETE") ||
+                    this != NONE && isVerb(method, "GET");
+        }
+
+        static Permission parse(Object value) {
+            if (!(value instanceof String)) return NONE;
+            try {
+                return valueOf((String) value);
+            } catch (IllegalArgumentException e) {
+                return NONE;
+            }
+        }
     }
 }
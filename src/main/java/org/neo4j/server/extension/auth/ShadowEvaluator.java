@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evaluates a candidate chain of {@link AuthenticationService}s next to the authoritative one without
+ * enforcing it. A sample of requests is handed to a single background thread through a bounded queue;
+ * when the queue is full the sample is dropped, so live requests never wait for the candidate.
+ */
+public class ShadowEvaluator {
+    private static final Logger LOG = LoggerFactory.getLogger(ShadowEvaluator.class);
+
+    private final AuthenticationService[] candidate;
+    private final double sampleRate;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong sampled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong matches = new AtomicLong();
+    private final AtomicLong falseAccepts = new AtomicLong();
+    private final AtomicLong falseRejects = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong authoritativeNanos = new AtomicLong();
+    private final AtomicLong candidateNanos = new AtomicLong();
+    private final AtomicLong maxDeltaNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * a shadow that never samples, for servers without a candidate
+     */
+    public static ShadowEvaluator disabled() {
+        return new ShadowEvaluator();
+    }
+
+    private ShadowEvaluator() {
+        this.candidate = null;
+        this.sampleRate = 0;
+        this.executor = null;
+    }
+
+    public ShadowEvaluator(final double sampleRate, final int queueSize, final AuthenticationService... candidate) {
+        if (sampleRate <= 0 || sampleRate > 1) throw new IllegalArgumentException("sample rate must be in (0,1]");
+        if (queueSize <= 0) throw new IllegalArgumentException("queue size must be positive");
+        this.candidate = candidate;
+        this.sampleRate = sampleRate;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "authentication-shadow");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                dropped.incrementAndGet();
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    /**
+     * @return true if the current request should be shadowed
+     */
+    public boolean sample() {
+        return executor != null && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    /**
+     * queues the candidate evaluation of a request the authoritative chain decided in {@code nanos}
+     */
+    public void submit(final String method, final byte[] credentials, final boolean verdict, final long nanos) {
+        sampled.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                evaluate(method, credentials, verdict, nanos);
+            }
+        });
+    }
+
+    private void evaluate(final String method, final byte[] credentials, final boolean verdict, final long nanos) {
+        final long start = System.nanoTime();
+        final boolean candidateVerdict;
+        try {
+            candidateVerdict = AuthenticationFilter.hasAccess(candidate, method, credentials);
+        } catch (RuntimeException e) {
+            errors.incrementAndGet();
+            LOG.debug("shadow candidate failed for " + method, e);
+            return;
+        }
+        final long took = System.nanoTime() - start;
+
+        authoritativeNanos.addAndGet(nanos);
+        candidateNanos.addAndGet(took);
+        long max = maxDeltaNanos.get();
+        while (took - nanos > max && !maxDeltaNanos.compareAndSet(max, took - nanos)) {
+            max = maxDeltaNanos.get();
+        }
+
+        if (candidateVerdict == verdict) {
+            matches.incrementAndGet();
+        } else {
+            (candidateVerdict ? falseAccepts : falseRejects).incrementAndGet();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("shadow mismatch for " + method + ": authoritative " + verdict + ", candidate " + candidateVerdict);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        final Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("enabled", isEnabled());
+        if (!isEnabled()) return stats;
+
+        final long compared = matches.get() + falseAccepts.get() + falseRejects.get();
+        stats.put("sampleRate", sampleRate);
+        stats.put("sampled", sampled.get());
+        stats.put("dropped", dropped.get());
+        stats.put("queued", executor.getQueue().size());
+        stats.put("matches", matches.get());
+        stats.put("falseAccepts", falseAccepts.get());
+        stats.put("falseRejects", falseRejects.get());
+        stats.put("errors", errors.get());
+        stats.put("meanAuthoritativeMicros", compared == 0 ? 0 : authoritativeNanos.get() / compared / 1000);
+        stats.put("meanCandidateMicros", compared == 0 ? 0 : candidateNanos.get() / compared / 1000);
+        stats.put("maxDeltaMicros", compared == 0 ? 0 : maxDeltaNanos.get() / 1000);
+        return stats;
+    }
+
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
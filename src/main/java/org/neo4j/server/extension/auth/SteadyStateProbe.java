@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time from the filter being ready until its credential checks reach steady state: checks are
+ * timed in windows of {@value #WINDOW} requests, and once the mean of a window is within 10% of the previous
+ * one the requests and milliseconds since ready are logged and recording stops. Only the credential check of
+ * {@link AuthenticationFilter} is timed, not the rest of the request.
+ */
+public class SteadyStateProbe {
+    private static final Logger LOG = LoggerFactory.getLogger(SteadyStateProbe.class);
+    static final int WINDOW = 1000;
+
+    private final long readyNanos = System.nanoTime();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong windowNanos = new AtomicLong();
+    private long previousMean = -1;
+    private volatile boolean steady;
+
+    public boolean isSteady() {
+        return steady;
+    }
+
+    public void record(long checkNanos) {
+        windowNanos.addAndGet(checkNanos);
+        final long count = requests.incrementAndGet();
+        if (count % WINDOW == 0) endWindow(count);
+    }
+
+    // concurrent checks may land in the neighbouring window, which does not matter for a mean over 1000
+    private synchronized void endWindow(long count) {
+        if (steady) return;
+        final long mean = windowNanos.getAndSet(0) / WINDOW;
+        if (previousMean >= 0 && Math.abs(mean - previousMean) * 10 <= previousMean) {
+            steady = true;
+            if (LOG.isInfoEnabled()) {
+                LOG.info("authentication steady after " + count + " requests, "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - readyNanos)
+                        + "ms after ready, " + mean + "ns per check");
+            }
+        }
+        previousMean = mean;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import sun.misc.BASE64Encoder;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs an {@link AuthenticationFilter} without a servlet container.
+ */
+final class ServletStubs {
+
+    private ServletStubs() {
+    }
+
+    static String basic(String credentials) {
+        return "Basic " + new BASE64Encoder().encode(credentials.getBytes());
+    }
+
+    /**
+     * @return true if the filter passed the request on to the chain
+     */
+    static boolean passes(AuthenticationFilter filter, String method, String header, String value)
+            throws IOException, ServletException {
+        final Map<String, Object> values = new HashMap<String, Object>();
+        values.put("getMethod", method);
+        values.put("header:" + header, value);
+        final boolean[] passed = new boolean[1];
+        filter.doFilter(proxy(HttpServletRequest.class, values), proxy(HttpServletResponse.class, values),
+                new FilterChain() {
+                    public void doFilter(ServletRequest request, ServletResponse response) {
+                        passed[0] = true;
+                    }
+                });
+        return passed[0];
+    }
+
+    /**
+     * stubs a servlet interface; getters answer from {@code values} by method name, headers by "header:" + name
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T proxy(Class<T> type, final Map<String, Object> values) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getHeader")) {
+                    return values.get("header:" + args[0]);
+                }
+                if (values.containsKey(method.getName())) return values.get(method.getName());
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) return false;
+                if (returnType == int.class) return 0;
+                if (returnType == long.class) return 0L;
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.ha.HaSettings;
+import org.neo4j.kernel.ha.HighlyAvailableGraphDatabase;
+import org.neo4j.test.TargetDirectory;
+import org.neo4j.test.ha.ClusterManager;
+import org.neo4j.test.ha.ClusterManager.ManagedCluster;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission.*;
+import static org.neo4j.test.ha.ClusterManager.allSeesAllAsAvailable;
+import static org.neo4j.test.ha.ClusterManager.clusterOfSize;
+
+/**
+ * One extension instance per member of an embedded HA cluster. Credential changes and the {@link AclVersion}
+ * reach the slaves through transaction replication only; their {@link AclRefresher}s must pick them up.
+ */
+public class TestAclRefresh {
+    private static final int MEMBERS = 3;
+    private static final long REFRESH_INTERVAL = 50;
+    private static final long PULL_INTERVAL = 100;
+
+    private ClusterManager clusterManager;
+    private ManagedCluster cluster;
+    private final List<Instance> instances = new ArrayList<Instance>();
+
+    private static class Instance {
+        final MultipleAuthenticationService users;
+        final ApiKeyAuthenticationService apiKeys;
+        final AclRefresher refresher;
+
+        Instance(GraphDatabaseAPI graph) {
+            users = new MultipleAuthenticationService(graph);
+            apiKeys = new ApiKeyAuthenticationService(graph);
+            refresher = new AclRefresher(graph, AclVersion.get(graph), users, apiKeys);
+            users.reload();
+            apiKeys.reload();
+        }
+    }
+
+    @Before public void setup() throws Throwable {
+        clusterManager = new ClusterManager(clusterOfSize(MEMBERS),
+                TargetDirectory.forTest(getClass()).cleanDirectory("cluster"),
+                stringMap(HaSettings.pull_interval.name(), PULL_INTERVAL + "ms"));
+        clusterManager.start();
+        cluster = clusterManager.getDefaultCluster();
+        cluster.await(allSeesAllAsAvailable());
+
+        instances.add(new Instance(cluster.getMaster()));
+        for (HighlyAvailableGraphDatabase member : cluster.getAllMembers()) {
+            if (member != cluster.getMaster()) instances.add(new Instance(member));
+        }
+    }
+
+    @After public void tearDown() throws Throwable {
+        for (Instance instance : instances) {
+            instance.refresher.stop();
+        }
+        clusterManager.shutdown();
+    }
+
+    @Test public void refreshPicksUpReplicatedChanges() throws Exception {
+        Instance master = instances.get(0);
+        Instance slave = instances.get(1);
+
+        master.users.setPermissionForUser("user1:pass", RW);
+        assertTrue(master.users.hasAccess("POST", "user1:pass".getBytes()));
+        assertFalse(slave.users.hasAccess("GET", "user1:pass".getBytes()));
+
+        cluster.sync();
+        assertTrue(slave.refresher.refresh());
+        assertTrue(slave.users.hasAccess("POST", "user1:pass".getBytes()));
+        assertFalse("unchanged version must not reload", slave.refresher.refresh());
+
+        master.users.setPermissionForGroup("readers", RO);
+        master.users.addMembers("readers", Arrays.asList("user2:pass"));
+        String key = master.apiKeys.createKey("service", RO);
+        master.users.setPermissionForUser("user1:pass", NONE);
+
+        cluster.sync();
+        assertTrue(slave.refresher.refresh());
+        assertFalse(slave.users.hasAccess("GET", "user1:pass".getBytes()));
+        assertTrue(slave.users.hasAccess("GET", "user2:pass".getBytes()));
+        assertTrue(slave.apiKeys.hasAccess("GET", key.getBytes()));
+    }
+
+    @Test public void concurrentChangesFromMasterAndSlaveGetDistinctVersions() throws Exception {
+        final Instance master = instances.get(0);
+        final Instance slave = instances.get(1);
+        final int changes = 20;
+        final long before = AclVersion.get(cluster.getMaster());
+
+        Thread users = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < changes; i++) {
+                    master.users.setPermissionForUser("user" + i + ":pass", RW);
+                }
+            }
+        });
+        Thread apiKeys = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < changes; i++) {
+                    slave.apiKeys.createKey("service" + i, RO);
+                }
+            }
+        });
+        users.start();
+        apiKeys.start();
+        users.join();
+        apiKeys.join();
+
+        assertEquals(before + 2 * changes, AclVersion.get(cluster.getMaster()));
+        cluster.sync();
+        for (Instance instance : instances) {
+            instance.refresher.refresh();
+            assertEquals(changes, instance.apiKeys.getKeys().size());
+            assertTrue(instance.users.hasAccess("POST", ("user" + (changes - 1) + ":pass").getBytes()));
+        }
+    }
+
+    @Test public void allMembersConvergeWithinBound() throws InterruptedException {
+        for (Instance instance : instances) {
+            instance.refresher.start(REFRESH_INTERVAL);
+        }
+        Instance master = instances.get(0);
+        Instance slave = instances.get(1);
+
+        master.users.setPermissionForUser("user1:pass", RW);
+        awaitConvergence("POST", true);
+
+        slave.users.setPermissionForUser("user1:pass", RO);
+        awaitConvergence("POST", false);
+
+        master.users.setPermissionForUser("user1:pass", NONE);
+        awaitConvergence("GET", false);
+    }
+
+    private void awaitConvergence(String method, boolean expected) throws InterruptedException {
+        final long limit = 20 * (PULL_INTERVAL + REFRESH_INTERVAL);
+        final long bound = System.currentTimeMillis() + limit;
+        for (Instance instance : instances) {
+            while (instance.users.hasAccess(method, "user1:pass".getBytes()) != expected) {
+                assertTrue("member did not converge within " + limit + "ms", System.currentTimeMillis() < bound);
+                Thread.sleep(REFRESH_INTERVAL / 5);
+            }
+        }
+    }
+}
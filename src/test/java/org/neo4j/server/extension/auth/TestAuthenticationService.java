@@ -19,15 +19,24 @@
  */
 package org.neo4j.server.extension.auth;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.neo4j.graphdb.PropertyContainer;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.impl.core.GraphProperties;
 import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.server.extension.auth.ApiKeyAuthenticationService.ApiKey;
 import org.neo4j.test.ImpermanentGraphDatabase;
 
-import static org.junit.Assert.assertEquals;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
 import static org.neo4j.helpers.collection.MapUtil.genericMap;
 import static org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission.*;
 
@@ -46,6 +55,10 @@ public class TestAuthenticationService {
         service = new MultipleAuthenticationService(graphDatabase);
     }
 
+    @After public void tearDown() {
+        graphDatabase.shutdown();
+    }
+
     @Test public void testUserAddRemove() {
         service.setPermissionForUser("user1", RO);
 
@@ -64,4 +77,136 @@ public class TestAuthenticationService {
         service.setPermissionForUser("user2", NONE);
         assertEquals(genericMap("user1", RO), service.getUsers());
     }
+
+    @Test public void testAccessFollowsPermissionChanges() {
+        assertFalse(service.hasAccess("GET", "user1:pass".getBytes()));
+
+        service.setPermissionForUser("user1:pass", RO);
+        assertTrue(service.hasAccess("GET", "user1:pass".getBytes()));
+        assertFalse(service.hasAccess("POST", "user1:pass".getBytes()));
+        assertFalse(service.hasAccess("GET", "user1:other".getBytes()));
+
+        service.setPermissionForUser("user1:pass", RW);
+        assertTrue(service.hasAccess("POST", "user1:pass".getBytes()));
+        assertTrue(service.hasAccess("DELETE", "user1:pass".getBytes()));
+
+        service.setPermissionForUser("user1:pass", NONE);
+        assertFalse(service.hasAccess("GET", "user1:pass".getBytes()));
+    }
+
+    @Test public void testSnapshotRoundTrip() throws IOException {
+        service.setPermissionForUser("user1:pass", RO);
+        service.setPermissionForUser("user2:pass", RW);
+        ApiKeyAuthenticationService apiKeys = new ApiKeyAuthenticationService(graphDatabase);
+        String key = apiKeys.createKey("user1", RO);
+
+        File file = File.createTempFile("acl", ".snapshot");
+        file.deleteOnExit();
+        long version = AclVersion.get(graphDatabase);
+        new AclSnapshot(file).write(version, service.getPermissions(), apiKeys.getKeys());
+        assertFalse(file.canExecute());
+
+        ImpermanentGraphDatabase otherDatabase = new ImpermanentGraphDatabase();
+        try {
+            AclSnapshot.Content content = new AclSnapshot(file).read(version);
+            MultipleAuthenticationService restored = new MultipleAuthenticationService(otherDatabase);
+            restored.restore(content.getPermissions());
+            assertEquals(genericMap("user1:pass", RO, "user2:pass", RW), restored.getPermissions());
+            assertTrue(restored.hasAccess("POST", "user2:pass".getBytes()));
+
+            ApiKeyAuthenticationService restoredKeys = new ApiKeyAuthenticationService(otherDatabase);
+            restoredKeys.restore(content.getApiKeys());
+            assertEquals(apiKeys.getKeys().keySet(), restoredKeys.getKeys().keySet());
+            assertTrue(restoredKeys.hasAccess("GET", key.getBytes()));
+            assertFalse(restoredKeys.hasAccess("POST", key.getBytes()));
+        } finally {
+            otherDatabase.shutdown();
+        }
+    }
+
+    @Test public void testStaleSnapshotIsIgnored() throws IOException {
+        service.setPermissionForUser("user1:pass", RW);
+
+        File file = File.createTempFile("acl", ".snapshot");
+        file.deleteOnExit();
+        new AclSnapshot(file).write(AclVersion.get(graphDatabase), service.getPermissions(), Collections.<String, ApiKey>emptyMap());
+
+        service.setPermissionForUser("user1:pass", NONE);
+        assertNull(new AclSnapshot(file).read(AclVersion.get(graphDatabase)));
+    }
+
+    @Test public void testCorruptSnapshotIsIgnored() throws IOException {
+        service.setPermissionForUser("user1:pass", RW);
+
+        File file = File.createTempFile("acl", ".snapshot");
+        file.deleteOnExit();
+        long version = AclVersion.get(graphDatabase);
+        new AclSnapshot(file).write(version, service.getPermissions(), Collections.<String, ApiKey>emptyMap());
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(22);
+        raf.write('x');
+        raf.close();
+
+        assertNull(new AclSnapshot(file).read(version));
+        assertNull(new AclSnapshot(new File(file.getPath() + ".missing")).read(version));
+    }
+
+    @Test public void testApiKeyRotation() {
+        ApiKeyAuthenticationService apiKeys = new ApiKeyAuthenticationService(graphDatabase);
+        String oldKey = apiKeys.createKey("service", RO);
+        String newKey = apiKeys.createKey("service", RW);
+
+        assertEquals(2, apiKeys.getKeys().size());
+        assertTrue(apiKeys.hasAccess("GET", oldKey.getBytes()));
+        assertFalse(apiKeys.hasAccess("POST", oldKey.getBytes()));
+        assertTrue(apiKeys.hasAccess("POST", newKey.getBytes()));
+        assertFalse(apiKeys.hasAccess("GET", "unknown".getBytes()));
+
+        for (String id : apiKeys.getKeys().keySet()) {
+            if (apiKeys.getKeys().get(id).getPermission() == RO) {
+                assertTrue(apiKeys.removeKey(id));
+                assertFalse(apiKeys.removeKey(id));
+            }
+        }
+        assertFalse(apiKeys.hasAccess("GET", oldKey.getBytes()));
+        assertTrue(apiKeys.hasAccess("GET", newKey.getBytes()));
+
+        ApiKeyAuthenticationService reloaded = new ApiKeyAuthenticationService(graphDatabase);
+        assertTrue(reloaded.hasAccess("DELETE", newKey.getBytes()));
+        assertEquals("service", reloaded.getKeys().values().iterator().next().getUser());
+    }
+
+    @Test public void testGroupPermissionsAreMaterialized() {
+        service.setPermissionForGroup("readers", RO);
+        service.setPermissionForGroup("writers", RW);
+        service.addMembers("readers", Arrays.asList("svc1:pass", "svc2:pass"));
+        service.addMembers("writers", Arrays.asList("svc2:pass"));
+
+        assertTrue(service.hasAccess("GET", "svc1:pass".getBytes()));
+        assertFalse(service.hasAccess("POST", "svc1:pass".getBytes()));
+        assertTrue(service.hasAccess("POST", "svc2:pass".getBytes()));
+        assertEquals(new TreeSet<String>(Arrays.asList("svc1", "svc2")), service.getGroups().get("readers").getMembers());
+
+        service.setPermissionForGroup("readers", RW);
+        assertTrue(service.hasAccess("POST", "svc1:pass".getBytes()));
+
+        service.removeMembers("writers", Arrays.asList("svc2:pass"));
+        service.setPermissionForGroup("readers", RO);
+        assertFalse(service.hasAccess("POST", "svc2:pass".getBytes()));
+
+        service.setPermissionForUser("svc1:pass", RW);
+        service.setPermissionForGroup("readers", NONE);
+        assertTrue(service.hasAccess("POST", "svc1:pass".getBytes()));
+        assertFalse(service.hasAccess("GET", "svc2:pass".getBytes()));
+
+        assertEquals(1, service.getGroups().size());
+        assertTrue(service.getGroups().get("writers").getMembers().isEmpty());
+        assertEquals(genericMap("svc1", RW), service.getUsers());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMembersOfUnknownGroup() {
+        service.addMembers("unknown", Arrays.asList("svc1:pass"));
+    }
 }
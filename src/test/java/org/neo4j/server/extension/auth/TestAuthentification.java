@@ -235,4 +235,40 @@ public class TestAuthentification {
             assertEquals("expecting responsecode 401", 401, e.getResponse().getStatus());
         }
     }
+
+    @Test public void batchIsAPlainPostWithoutInspection() {
+        assertEquals("OK", addUser("reader", "pass", false));
+        assertEquals("OK", addUser("writer", "pass", true));
+        final String batch = "[{\"method\":\"GET\",\"to\":\"/\"}]";
+
+        Client reader = createClient();
+        reader.addFilter(new HTTPBasicAuthFilter("reader", "pass"));
+        response = reader.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, batch);
+        assertEquals(401, response.getStatus());
+        response.close();
+
+        Client writer = createClient();
+        writer.addFilter(new HTTPBasicAuthFilter("writer", "pass"));
+        response = writer.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .accept(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, batch);
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test public void apiKeyAccess() {
+        MultivaluedMap<String, String> formData = new MultivaluedMapImpl();
+        formData.add("user", "service");
+        final String key = adminClient.resource("http://localhost:7474/admin/add-api-key-ro").post(String.class, formData);
+
+        response = client.resource("http://localhost:7474/db/data").header("X-Api-Key", key).get(ClientResponse.class);
+        assertEquals(200, response.getStatus());
+        response.close();
+
+        response = client.resource("http://localhost:7474/db/data/node").header("X-Api-Key", key).post(ClientResponse.class);
+        assertEquals(401, response.getStatus());
+        response.close();
+
+        response = client.resource("http://localhost:7474/db/data").header("X-Api-Key", key + "x").get(ClientResponse.class);
+        assertEquals(401, response.getStatus());
+    }
 }
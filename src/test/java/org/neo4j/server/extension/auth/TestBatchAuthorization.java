@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.HTTPBasicAuthFilter;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.server.WrappingNeoServerBootstrapper;
+import org.neo4j.server.configuration.ServerConfigurator;
+import org.neo4j.server.configuration.ThirdPartyJaxRsPackage;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Batch requests with org.neo4j.server.credentials.batch_inspection enabled.
+ */
+public class TestBatchAuthorization {
+    private WrappingNeoServerBootstrapper testBootstrapper;
+    private ClientResponse response;
+    private final Client adminClient = createClient();
+
+    {
+        adminClient.addFilter(new HTTPBasicAuthFilter("neo4j", "master"));
+    }
+
+    private Client createClient() {
+        return Client.create();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        ImpermanentGraphDatabase db = new ImpermanentGraphDatabase();
+
+        ServerConfigurator config = new ServerConfigurator(db);
+        config.configuration().setProperty("org.neo4j.server.credentials", "neo4j:master");
+        config.configuration().setProperty("org.neo4j.server.credentials.batch_inspection", "true");
+        config.getThirdpartyJaxRsPackages().add(new ThirdPartyJaxRsPackage("org.neo4j.server.extension.auth", "/admin"));
+        testBootstrapper = new WrappingNeoServerBootstrapper(db, config);
+        testBootstrapper.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (response != null) response.close();
+        testBootstrapper.stop();
+    }
+
+    private String addUser(final String user, String pass, boolean rw) {
+        MultivaluedMap<String, String> formData = new MultivaluedMapImpl();
+        formData.add("user", user + ":" + pass);
+        return adminClient.resource("http://localhost:7474/admin/add-user-" + (rw ? "rw" : "ro")).post(String.class, formData);
+    }
+
+    @Test public void roUserMayRunBatchOfReads() {
+        assertEquals("OK", addUser("test", "pass", false));
+
+        Client client = createClient();
+        client.addFilter(new HTTPBasicAuthFilter("test", "pass"));
+
+        response = client.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .accept(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, "[{\"method\":\"GET\",\"to\":\"/\",\"id\":0}," +
+                        "{\"method\":\"GET\",\"to\":\"http://localhost:7474/db/data/\",\"body\":{\"a\":[1,2]},\"id\":1}]");
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test public void roUserMayNotRunBatchWithWrites() {
+        assertEquals("OK", addUser("test", "pass", false));
+
+        Client client = createClient();
+        client.addFilter(new HTTPBasicAuthFilter("test", "pass"));
+
+        response = client.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, "[{\"method\":\"GET\",\"to\":\"/\"},{\"method\":\"POST\",\"to\":\"/node\"}]");
+        assertEquals(401, response.getStatus());
+        response.close();
+
+        response = client.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, "[]");
+        assertEquals(401, response.getStatus());
+        response.close();
+
+        response = client.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, "[{\"method\":\"GET\"");
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test public void unknownUserMayNotRunBatch() {
+        Client client = createClient();
+        client.addFilter(new HTTPBasicAuthFilter("unknown", "pass"));
+
+        response = client.resource("http://localhost:7474/db/data/batch").type(MediaType.APPLICATION_JSON_TYPE)
+                .post(ClientResponse.class, "[{\"method\":\"GET\",\"to\":\"/\"}]");
+        assertEquals(401, response.getStatus());
+    }
+}
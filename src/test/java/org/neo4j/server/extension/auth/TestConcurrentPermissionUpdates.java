@@ -0,0 +1,251 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission;
+import org.neo4j.test.ImpermanentGraphDatabase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission.*;
+import static org.neo4j.server.extension.auth.ServletStubs.basic;
+import static org.neo4j.server.extension.auth.ServletStubs.passes;
+
+/**
+ * Hammers {@link AuthenticationFilter} from several threads while other threads add, downgrade and remove
+ * the same users through {@link AuthenticationResource}. Every check that did not overlap a change of its user
+ * must agree with the last completed change once the stale bound has passed since that change.
+ * <p/>
+ * Each run takes {@code -Dauth.stress.seconds} (default 2) seconds. When readers share the writers' services,
+ * {@code -Dauth.stress.stale_bound_ms} (default 0) is the time after a change during which the old permission may
+ * still be seen. When readers use their own services that only learn of changes through an {@link AclRefresher}
+ * polling every {@code -Dauth.stress.refresh_interval_ms} (default 100), the bound is that interval plus
+ * {@code -Dauth.stress.reload_allowance_ms} (default 50) for the reload itself and thread scheduling.
+ */
+public class TestConcurrentPermissionUpdates {
+    private static final Logger LOG = LoggerFactory.getLogger(TestConcurrentPermissionUpdates.class);
+    private static final long STALE_BOUND_MS = Long.getLong("auth.stress.stale_bound_ms", 0);
+    private static final long REFRESH_INTERVAL_MS = Long.getLong("auth.stress.refresh_interval_ms", 100);
+    private static final long RELOAD_ALLOWANCE_MS = Long.getLong("auth.stress.reload_allowance_ms", 50);
+    private static final int USERS = 64;
+    private static final int READERS = 4;
+    private static final int WRITERS = 2;
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+
+    private ImpermanentGraphDatabase graphDatabase;
+    private AuthenticationResource resource;
+    private AuthenticationFilter sharedFilter;
+    private AuthenticationFilter readerFilter;
+    private long staleBoundNanos;
+
+    // per user: odd while a change is in flight, the last completed permission and when it completed
+    private final AtomicLongArray sequence = new AtomicLongArray(USERS);
+    private final AtomicReferenceArray<Permission> current = new AtomicReferenceArray<Permission>(USERS);
+    private final AtomicLongArray stableSince = new AtomicLongArray(USERS);
+
+    private final AtomicLong checks = new AtomicLong();
+    private final AtomicLong overlapping = new AtomicLong();
+    private final AtomicLong staleGrants = new AtomicLong();
+    private final AtomicLong missingGrants = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong maxCheckNanos = new AtomicLong();
+
+    @Before public void setup() {
+        graphDatabase = new ImpermanentGraphDatabase();
+        MultipleAuthenticationService users = new MultipleAuthenticationService(graphDatabase);
+        resource = new AuthenticationResource(users, new ApiKeyAuthenticationService(graphDatabase),
+                ShadowEvaluator.disabled());
+        sharedFilter = new AuthenticationFilter("stress", users);
+    }
+
+    @After public void tearDown() {
+        graphDatabase.shutdown();
+    }
+
+    @Test public void noStaleGrantsUnderConcurrentUpdates() throws Exception {
+        stress(sharedFilter, STALE_BOUND_MS);
+    }
+
+    /**
+     * readers check a second set of services on the same database, which is what another cluster member sees
+     */
+    @Test public void noStaleGrantsThroughRefresher() throws Exception {
+        final MultipleAuthenticationService users = new MultipleAuthenticationService(graphDatabase);
+        final ApiKeyAuthenticationService apiKeys = new ApiKeyAuthenticationService(graphDatabase);
+        final AclRefresher refresher = new AclRefresher(graphDatabase, AclVersion.get(graphDatabase), users, apiKeys);
+        users.reload();
+        apiKeys.reload();
+        refresher.start(REFRESH_INTERVAL_MS);
+        try {
+            stress(new AuthenticationFilter("refreshed", users), REFRESH_INTERVAL_MS + RELOAD_ALLOWANCE_MS);
+        } finally {
+            refresher.stop();
+        }
+    }
+
+    private void stress(AuthenticationFilter filter, long staleBoundMillis) throws Exception {
+        readerFilter = filter;
+        staleBoundNanos = TimeUnit.MILLISECONDS.toNanos(staleBoundMillis);
+        for (int i = 0; i < USERS; i++) {
+            current.set(i, NONE);
+            stableSince.set(i, System.nanoTime() - staleBoundNanos);
+        }
+
+        final long duration = TimeUnit.SECONDS.toNanos(Long.getLong("auth.stress.seconds", 2));
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads.isThreadContentionMonitoringSupported()) threads.setThreadContentionMonitoringEnabled(true);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] deadline = new long[1];
+        final List<Thread> readers = new ArrayList<Thread>();
+        final List<Thread> all = new ArrayList<Thread>();
+        final List<Throwable> failures = new ArrayList<Throwable>();
+
+        for (int r = 0; r < READERS; r++) {
+            final int seed = r;
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(seed);
+                        while (System.nanoTime() < deadline[0]) {
+                            check(random.nextInt(USERS), METHODS[random.nextInt(METHODS.length)]);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failures) { failures.add(t); }
+                    }
+                }
+            }, "stress-reader-" + r);
+            readers.add(reader);
+            all.add(reader);
+        }
+        for (int w = 0; w < WRITERS; w++) {
+            final int writer = w;
+            all.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(1000 + writer);
+                        while (System.nanoTime() < deadline[0]) {
+                            // each writer owns a disjoint set of users, so "current" has a single writer per user
+                            int user = writer + WRITERS * random.nextInt(USERS / WRITERS);
+                            change(user, Permission.values()[random.nextInt(3)]);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (failures) { failures.add(t); }
+                    }
+                }
+            }, "stress-writer-" + w));
+        }
+
+        for (Thread thread : all) thread.start();
+        deadline[0] = System.nanoTime() + duration;
+        final long started = System.nanoTime();
+        start.countDown();
+        for (Thread thread : all) thread.join();
+        final double seconds = (System.nanoTime() - started) / 1e9;
+
+        long blocked = 0, blockedMillis = 0;
+        for (Thread reader : readers) {
+            ThreadInfo info = threads.getThreadInfo(reader.getId());
+            if (info == null) continue;
+            blocked += info.getBlockedCount();
+            blockedMillis += Math.max(0, info.getBlockedTime());
+        }
+
+        LOG.info(String.format(
+                "auth stress (stale bound %dms): %d checks (%.0f/s), %d changes (%.0f/s), %d overlapping a change, "
+                        + "max check %dus, readers blocked %d times for %dms, stale grants %d, missing grants %d",
+                staleBoundMillis, checks.get(), checks.get() / seconds, changes.get(), changes.get() / seconds, overlapping.get(),
+                TimeUnit.NANOSECONDS.toMicros(maxCheckNanos.get()), blocked, blockedMillis,
+                staleGrants.get(), missingGrants.get()));
+
+        assertEquals("unexpected failures " + failures, 0, failures.size());
+        assertTrue("no checks were run", checks.get() > 0);
+        assertTrue("no changes were made", changes.get() > 0);
+        assertEquals("stale grants", 0, staleGrants.get());
+        assertEquals("missing grants", 0, missingGrants.get());
+    }
+
+    private void change(int user, Permission permission) {
+        sequence.incrementAndGet(user);
+        String credentials = credentials(user);
+        switch (permission) {
+            case RO: resource.addUserRo(credentials); break;
+            case RW: resource.addUserRw(credentials); break;
+            default: resource.removeUser(credentials); break;
+        }
+        current.set(user, permission);
+        stableSince.set(user, System.nanoTime());
+        sequence.incrementAndGet(user);
+        changes.incrementAndGet();
+    }
+
+    private void check(int user, String method) throws Exception {
+        final long before = sequence.get(user);
+        final Permission expected = current.get(user);
+        final long since = stableSince.get(user);
+
+        final long start = System.nanoTime();
+        final boolean allowed = allowed(method, credentials(user));
+        final long took = System.nanoTime() - start;
+
+        checks.incrementAndGet();
+        long max = maxCheckNanos.get();
+        while (took > max && !maxCheckNanos.compareAndSet(max, took)) {
+            max = maxCheckNanos.get();
+        }
+
+        if ((before & 1) != 0 || sequence.get(user) != before) {
+            overlapping.incrementAndGet();
+            return;
+        }
+        // within the bound after a change either permission is acceptable
+        if (start - since < staleBoundNanos) return;
+
+        if (allowed && !expected.allows(method)) staleGrants.incrementAndGet();
+        if (!allowed && expected.allows(method)) missingGrants.incrementAndGet();
+    }
+
+    private boolean allowed(String method, String credentials) throws Exception {
+        return passes(readerFilter, method, "Authorization", basic(credentials));
+    }
+
+    private static String credentials(int user) {
+        return "user-" + user + ":pass";
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.test.ImpermanentGraphDatabase;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.neo4j.server.extension.auth.MultipleAuthenticationService.Permission.RO;
+import static org.neo4j.server.extension.auth.ServletStubs.basic;
+import static org.neo4j.server.extension.auth.ServletStubs.passes;
+
+public class TestShadowEvaluator {
+
+    private MultipleAuthenticationService service;
+    private ImpermanentGraphDatabase graphDatabase;
+
+    @Before public void setup() {
+        graphDatabase = new ImpermanentGraphDatabase();
+        service = new MultipleAuthenticationService(graphDatabase);
+    }
+
+    @After public void tearDown() {
+        graphDatabase.shutdown();
+    }
+
+    @Test public void recordsMismatches() throws InterruptedException {
+        service.setPermissionForUser("user1:pass", RO);
+        ShadowEvaluator shadow = new ShadowEvaluator(1.0, 100, new SingleUserAuthenticationService("user1:pass"));
+        try {
+            assertTrue(shadow.sample());
+            shadow.submit("GET", "user1:pass".getBytes(), service.hasAccess("GET", "user1:pass".getBytes()), 1000);
+            shadow.submit("POST", "user1:pass".getBytes(), service.hasAccess("POST", "user1:pass".getBytes()), 1000);
+            shadow.submit("GET", "user2:pass".getBytes(), service.hasAccess("GET", "user2:pass".getBytes()), 1000);
+
+            Map<String, Object> stats = shadow.getStats();
+            for (int i = 0; i < 100 && (Long) stats.get("matches") + (Long) stats.get("falseAccepts") < 3; i++) {
+                Thread.sleep(10);
+                stats = shadow.getStats();
+            }
+            assertEquals(3L, stats.get("sampled"));
+            assertEquals(2L, stats.get("matches"));
+            assertEquals(1L, stats.get("falseAccepts"));
+            assertEquals(0L, stats.get("falseRejects"));
+        } finally {
+            shadow.shutdown();
+        }
+        assertFalse(ShadowEvaluator.disabled().sample());
+    }
+
+    @Test(timeout = 10000) public void filterNeverBlocksNorEnforcesCandidate() throws Exception {
+        service.setPermissionForUser("user1:pass", RO);
+        ApiKeyAuthenticationService apiKeys = new ApiKeyAuthenticationService(graphDatabase);
+        String key = apiKeys.createKey("service", RO);
+
+        final CountDownLatch release = new CountDownLatch(1);
+        AuthenticationService blockingCandidate = new AuthenticationService() {
+            @Override public boolean hasAccess(String method, byte[] credentials) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        };
+        ShadowEvaluator shadow = new ShadowEvaluator(1.0, 1, blockingCandidate);
+        AuthenticationFilter filter = new AuthenticationFilter("test", service);
+        filter.setApiKeyService(apiKeys);
+        filter.setShadow(shadow);
+        try {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(passes(filter, "GET", "Authorization", basic("user1:pass")));
+                assertFalse("only the authoritative verdict is enforced",
+                        passes(filter, "POST", "Authorization", basic("user1:pass")));
+            }
+            assertTrue(passes(filter, "GET", AuthenticationFilter.API_KEY_HEADER, key));
+
+            Map<String, Object> stats = shadow.getStats();
+            assertEquals("api-key requests are not sampled", 20L, stats.get("sampled"));
+            assertTrue("samples beyond the running and the queued one are dropped", (Long) stats.get("dropped") >= 18);
+        } finally {
+            release.countDown();
+            shadow.shutdown();
+        }
+    }
+}
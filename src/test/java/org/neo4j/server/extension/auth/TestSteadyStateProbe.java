@@ -0,0 +1,43 @@
+/**
+ * Copyright (c) 2002-2014 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.extension.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSteadyStateProbe {
+
+    @Test public void steadyOnceTwoWindowsAgree() {
+        SteadyStateProbe probe = new SteadyStateProbe();
+        record(probe, SteadyStateProbe.WINDOW, 5000);
+        record(probe, SteadyStateProbe.WINDOW, 1000);
+        assertFalse(probe.isSteady());
+        record(probe, SteadyStateProbe.WINDOW - 1, 1050);
+        assertFalse(probe.isSteady());
+        record(probe, 1, 1050);
+        assertTrue(probe.isSteady());
+    }
+
+    private static void record(SteadyStateProbe probe, int count, long nanos) {
+        for (int i = 0; i < count; i++) probe.record(nanos);
+    }
+}